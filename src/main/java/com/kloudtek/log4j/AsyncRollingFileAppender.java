@@ -11,6 +11,7 @@ import org.apache.log4j.rolling.RolloverDescription;
 import org.apache.log4j.rolling.TriggeringPolicy;
 import org.apache.log4j.rolling.helper.Action;
 import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.OptionHandler;
 import org.apache.log4j.xml.UnrecognizedElementHandler;
@@ -38,6 +39,7 @@ public class AsyncRollingFileAppender extends FileAppender implements Unrecogniz
     private int bufferSize = 128;
     private boolean locationInfo = false;
     private boolean blocking = true;
+    private long coalesceWindow = 0L;
 
     public AsyncRollingFileAppender() {
         this.dispatcher = new Thread(new Dispatcher(this, this.buffer, this.discardMap));
@@ -156,12 +158,47 @@ public class AsyncRollingFileAppender extends FileAppender implements Unrecogniz
 
             }
         } else {
-            doAppend(event);
+            synchronized (this) {
+                dispatch(event);
+            }
         }
     }
 
+    /**
+     * Same checks as {@link org.apache.log4j.AppenderSkeleton#doAppend(LoggingEvent)}, but without holding the appender
+     * lock, as {@link #append(LoggingEvent)} may block on a full buffer while the dispatcher needs that lock to write.
+     */
     public void doAppend(LoggingEvent event) {
-        super.append(event);
+        if (this.closed) {
+            LogLog.error("Attempted to append to closed appender named [" + this.name + "].");
+            return;
+        }
+        if (!this.isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        Filter f = this.headFilter;
+        FILTER_LOOP:
+        while (f != null) {
+            switch (f.decide(event)) {
+                case Filter.DENY:
+                    return;
+                case Filter.ACCEPT:
+                    break FILTER_LOOP;
+                case Filter.NEUTRAL:
+                    f = f.getNext();
+            }
+        }
+        this.append(event);
+    }
+
+    /**
+     * Write an event to the file. The closed flag isn't checked since the dispatcher still writes the remaining
+     * events once the appender is closing. Must be called while holding the appender lock.
+     */
+    private void dispatch(LoggingEvent event) {
+        if (this.qw != null && this.layout != null) {
+            super.subAppend(event);
+        }
     }
 
 
@@ -182,6 +219,10 @@ public class AsyncRollingFileAppender extends FileAppender implements Unrecogniz
             Thread.currentThread().interrupt();
             LogLog.error("Got an InterruptedException while waiting for the dispatcher to finish.", var5);
         }
+        synchronized (this) {
+            this.writeFooter();
+            this.reset();
+        }
     }
 
     public boolean getLocationInfo() {
@@ -218,6 +259,28 @@ public class AsyncRollingFileAppender extends FileAppender implements Unrecogniz
         }
     }
 
+    public long getCoalesceWindow() {
+        return this.coalesceWindow;
+    }
+
+    /**
+     * Set the time window (in milliseconds) during which repeated events (same logger, level, message and throwable)
+     * are coalesced. The first occurrence is written immediately, while repeats received within the window are written
+     * as a single event once the window closes, possibly after other events logged in the meantime. That event's count,
+     * firstTimestamp and lastTimestamp describe the whole burst: the count includes the first occurrence, and
+     * firstTimestamp is the time of that first occurrence. A value of 0 (the default) disables coalescing.
+     */
+    public void setCoalesceWindow(long window) {
+        if (window < 0L) {
+            throw new IllegalArgumentException("Coalesce window must not be negative: " + window);
+        } else {
+            synchronized (this.buffer) {
+                this.coalesceWindow = window;
+                this.buffer.notifyAll();
+            }
+        }
+    }
+
     public boolean rollover() {
         if (this.rollingPolicy != null) {
             Exception exception = null;
@@ -469,17 +532,29 @@ public class AsyncRollingFileAppender extends FileAppender implements Unrecogniz
 
         public void run() {
             boolean isActive = true;
+            Coalescer coalescer = new Coalescer();
 
             try {
                 while (isActive) {
                     LoggingEvent[] ex = null;
-                    List i = this.buffer;
+                    long coalesceWindow;
+                    int maxPending;
                     synchronized (this.buffer) {
                         int bufferSize = this.buffer.size();
+                        maxPending = this.parent.bufferSize;
+                        coalesceWindow = this.parent.coalesceWindow;
 
                         for (isActive = !this.parent.closed; bufferSize == 0 && isActive; isActive = !this.parent.closed) {
-                            this.buffer.wait();
+                            long delay = coalescer.getFlushDelay(System.currentTimeMillis(), coalesceWindow);
+                            if (delay == 0L) {
+                                break;
+                            } else if (delay > 0L) {
+                                this.buffer.wait(delay);
+                            } else {
+                                this.buffer.wait();
+                            }
                             bufferSize = this.buffer.size();
+                            coalesceWindow = this.parent.coalesceWindow;
                         }
 
                         if (bufferSize > 0) {
@@ -497,11 +572,10 @@ public class AsyncRollingFileAppender extends FileAppender implements Unrecogniz
                         }
                     }
 
-                    if (ex != null) {
-                        for (LoggingEvent event : ex) {
-                            synchronized (parent) {
-                                parent.doAppend(event);
-                            }
+                    List<LoggingEvent> events = coalescer.process(ex, coalesceWindow, maxPending, System.currentTimeMillis(), !isActive, this.parent.getLocationInfo());
+                    for (LoggingEvent event : events) {
+                        synchronized (parent) {
+                            parent.dispatch(event);
                         }
                     }
                 }
@@ -512,6 +586,141 @@ public class AsyncRollingFileAppender extends FileAppender implements Unrecogniz
         }
     }
 
+    /**
+     * Merges repeated events received by the dispatcher within the coalescing window. The first occurrence of an event
+     * is written immediately and opens a window, repeats received within that window are only counted, and a single
+     * {@link CoalescedLoggingEvent} summarizing the burst is written once the window closes (if there was any repeat). Summaries may therefore be
+     * written after unrelated events logged in the meantime. At most maxPending windows are tracked, the oldest one
+     * being closed early when that limit is reached.
+     */
+    static final class Coalescer {
+        private final LinkedHashMap<List<Object>, CoalesceSummary> pending = new LinkedHashMap<>();
+
+        public int getPendingSize() {
+            return this.pending.size();
+        }
+
+        public long getFlushDelay(long now, long window) {
+            if (this.pending.isEmpty()) {
+                return -1L;
+            }
+            long windowStart = this.pending.values().iterator().next().getWindowStart();
+            return Math.max(0L, windowStart + window - now);
+        }
+
+        public List<LoggingEvent> process(LoggingEvent[] events, long window, int maxPending, long now, boolean flushAll, boolean locationInfo) {
+            if (window <= 0L && this.pending.isEmpty()) {
+                return events != null ? Arrays.asList(events) : Collections.<LoggingEvent>emptyList();
+            }
+            List<LoggingEvent> result = new ArrayList<>();
+            if (window <= 0L) {
+                flush(result, true, window, now, locationInfo);
+                result.addAll(Arrays.asList(events != null ? events : new LoggingEvent[0]));
+                return result;
+            }
+            if (events != null) {
+                for (LoggingEvent event : events) {
+                    List<Object> key = createKey(event);
+                    CoalesceSummary summary = this.pending.get(key);
+                    if (summary != null && summary.getWindowStart() + window <= event.timeStamp) {
+                        this.pending.remove(key);
+                        summary.flushTo(result, locationInfo);
+                        summary = null;
+                    }
+                    if (summary == null) {
+                        result.add(event);
+                        this.pending.put(key, new CoalesceSummary(event.timeStamp));
+                        if (this.pending.size() > Math.max(1, maxPending)) {
+                            Iterator<CoalesceSummary> iter = this.pending.values().iterator();
+                            iter.next().flushTo(result, locationInfo);
+                            iter.remove();
+                        }
+                    } else {
+                        summary.add(event);
+                    }
+                }
+            }
+            flush(result, flushAll, window, now, locationInfo);
+            return result;
+        }
+
+        private void flush(List<LoggingEvent> result, boolean flushAll, long window, long now, boolean locationInfo) {
+            for (Iterator<CoalesceSummary> iter = this.pending.values().iterator(); iter.hasNext(); ) {
+                CoalesceSummary summary = iter.next();
+                if (!flushAll && summary.getWindowStart() + window > now) {
+                    break;
+                }
+                summary.flushTo(result, locationInfo);
+                iter.remove();
+            }
+        }
+
+        private static List<Object> createKey(LoggingEvent event) {
+            return Arrays.<Object>asList(event.getLoggerName(), event.getLevel().toInt(), event.getRenderedMessage(), getThrowableFingerprint(event));
+        }
+
+        /**
+         * Build a fingerprint of the throwable (including its causes) from its string representation, keeping the
+         * throwable classes and stack frames but dropping messages, which may vary between otherwise identical failures.
+         */
+        static List<String> getThrowableFingerprint(LoggingEvent event) {
+            String[] rep = event.getThrowableStrRep();
+            if (rep == null || rep.length == 0) {
+                return null;
+            }
+            List<String> fingerprint = new ArrayList<>(rep.length);
+            for (int i = 0; i < rep.length; i++) {
+                String line = rep[i].trim();
+                if (line.startsWith("at ") || line.startsWith("...")) {
+                    fingerprint.add(line);
+                } else if (line.startsWith("Caused by: ")) {
+                    fingerprint.add(stripMessage(line, "Caused by: ".length()));
+                } else if (line.startsWith("Suppressed: ")) {
+                    fingerprint.add(stripMessage(line, "Suppressed: ".length()));
+                } else if (i == 0) {
+                    fingerprint.add(stripMessage(line, 0));
+                }
+            }
+            return fingerprint;
+        }
+
+        private static String stripMessage(String line, int fromIndex) {
+            int idx = line.indexOf(':', fromIndex);
+            return idx < 0 ? line : line.substring(0, idx);
+        }
+    }
+
+    private static final class CoalesceSummary {
+        private final long windowStart;
+        private LoggingEvent firstRepeat;
+        private long lastTimestamp;
+        private int count = 1;
+
+        public CoalesceSummary(long windowStart) {
+            this.windowStart = windowStart;
+        }
+
+        public void add(LoggingEvent event) {
+            if (this.firstRepeat == null) {
+                this.firstRepeat = event;
+                this.lastTimestamp = event.timeStamp;
+            } else {
+                this.lastTimestamp = Math.max(this.lastTimestamp, event.timeStamp);
+            }
+            ++this.count;
+        }
+
+        public long getWindowStart() {
+            return this.windowStart;
+        }
+
+        public void flushTo(List<LoggingEvent> result, boolean locationInfo) {
+            if (this.firstRepeat != null) {
+                result.add(new CoalescedLoggingEvent(this.firstRepeat, locationInfo ? this.firstRepeat.getLocationInformation() : null, this.count, this.windowStart, this.lastTimestamp));
+            }
+        }
+    }
+
     private static final class DiscardSummary {
         private LoggingEvent maxEvent;
         private int count;
@@ -0,0 +1,43 @@
+package com.kloudtek.log4j;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Logging event summarizing a burst of repeated events coalesced by {@link AsyncRollingFileAppender}. The event itself
+ * is built from the first repeat, while count, firstTimestamp and lastTimestamp describe the whole burst, including its
+ * first occurrence which has already been written on its own.
+ */
+public class CoalescedLoggingEvent extends LoggingEvent {
+    private static final long serialVersionUID = 1L;
+    private final int count;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+
+    public CoalescedLoggingEvent(LoggingEvent event, LocationInfo locationInfo, int count, long firstTimestamp, long lastTimestamp) {
+        super(event.fqnOfCategoryClass, getLogger(event), event.timeStamp, event.getLevel(), event.getMessage(),
+                event.getThreadName(), event.getThrowableInformation(), event.getNDC(), locationInfo, event.getProperties());
+        this.count = count;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    private static Category getLogger(LoggingEvent event) {
+        // logger is transient, so it is missing on deserialized events
+        return event.getLogger() != null ? event.getLogger() : Logger.getLogger(event.getLoggerName());
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+}
@@ -40,6 +40,12 @@ public class JsonLayout extends Layout {
     private Map<String, Object> toHashMap(LoggingEvent le) {
         Map<String, Object> r = new LinkedHashMap<>();
         r.put("timestamp", dateFormat.format(new Date(le.timeStamp)));
+        if (le instanceof CoalescedLoggingEvent) {
+            final CoalescedLoggingEvent coalesced = (CoalescedLoggingEvent) le;
+            r.put("count", coalesced.getCount());
+            r.put("firstTimestamp", dateFormat.format(new Date(coalesced.getFirstTimestamp())));
+            r.put("lastTimestamp", dateFormat.format(new Date(coalesced.getLastTimestamp())));
+        }
         r.put("level", le.getLevel().toString());
         r.put("thread", le.getThreadName());
         r.put("ndc", le.getNDC());
@@ -1,13 +1,21 @@
 package com.kloudtek.log4j;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
+import org.apache.log4j.rolling.FixedWindowRollingPolicy;
+import org.apache.log4j.rolling.SizeBasedTriggeringPolicy;
 import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
 
 /**
  * Created by yannick on 10/16/15.
@@ -16,17 +24,122 @@ public class AsyncRollingFileAppenderTest {
     @Test(enabled = true)
     public void testLog() throws Exception{
         final File logFile = new File("target/test.log");
-        if( logFile.exists() ) {
-            logFile.delete();
-        }
+        // log4j may already be configured by other tests, in which case the active file is already open
+        final long offset = logFile.exists() ? logFile.length() : 0L;
         MDC.put("mdckey","mdcval");
 //        System.setProperty("log4j.debug","true");
         Logger.getLogger(AsyncRollingFileAppenderTest.class).info("\\\"TEST",new IOException());
         Thread.sleep(1500);
         try(FileInputStream fs = new FileInputStream(logFile)) {
+            fs.skip(offset);
             final String logs = IOUtils.toString(fs);
             System.out.println(logs);
         }
         Thread.sleep(500);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCoalesceRepeats() throws Exception {
+        final File logFile = new File("target/coalesce-repeats.log");
+        final AsyncRollingFileAppender appender = createAppender(logFile, 300L);
+        final Logger logger = createLogger("coalesce.repeats", appender);
+        try {
+            for (int i = 0; i < 100; i++) {
+                logger.error("failure", new IOException("failure " + i));
+            }
+            // no more traffic, the dispatcher must flush the expired window on its own
+            Thread.sleep(1000);
+            final List<JsonObject> lines = readLines(logFile);
+            assertEquals(lines.size(), 2);
+            assertFalse(lines.get(0).has("count"));
+            assertEquals(lines.get(1).get("count").getAsInt(), 100);
+            assertEquals(lines.get(1).get("firstTimestamp").getAsString(), lines.get(0).get("timestamp").getAsString());
+            assertTrue(lines.get(1).has("lastTimestamp"));
+        } finally {
+            logger.removeAppender(appender);
+            appender.close();
+        }
+    }
+
+    @Test
+    public void testCoalesceFlushedOnClose() throws Exception {
+        final File logFile = new File("target/coalesce-close.log");
+        final AsyncRollingFileAppender appender = createAppender(logFile, 60000L);
+        final Logger logger = createLogger("coalesce.close", appender);
+        try {
+            for (int i = 0; i < 10; i++) {
+                logger.error("failure");
+            }
+        } finally {
+            logger.removeAppender(appender);
+            appender.close();
+        }
+        final List<JsonObject> lines = readLines(logFile);
+        assertEquals(lines.size(), 2);
+        assertFalse(lines.get(0).has("count"));
+        assertEquals(lines.get(1).get("count").getAsInt(), 10);
+    }
+
+    @Test
+    public void testCoalesceWindowChangedAtRuntime() throws Exception {
+        final File logFile = new File("target/coalesce-runtime.log");
+        final AsyncRollingFileAppender appender = createAppender(logFile, 0L);
+        final Logger logger = createLogger("coalesce.runtime", appender);
+        try {
+            for (int i = 0; i < 3; i++) {
+                logger.error("failure");
+            }
+            Thread.sleep(300);
+            assertEquals(readLines(logFile).size(), 3);
+            appender.setCoalesceWindow(60000L);
+            for (int i = 0; i < 3; i++) {
+                logger.error("failure");
+            }
+            Thread.sleep(300);
+            assertEquals(readLines(logFile).size(), 4);
+            appender.setCoalesceWindow(0L);
+            Thread.sleep(300);
+            final List<JsonObject> lines = readLines(logFile);
+            assertEquals(lines.size(), 5);
+            assertEquals(lines.get(4).get("count").getAsInt(), 3);
+        } finally {
+            logger.removeAppender(appender);
+            appender.close();
+        }
+    }
+
+    private static AsyncRollingFileAppender createAppender(File logFile, long coalesceWindow) {
+        if (logFile.exists()) {
+            logFile.delete();
+        }
+        final FixedWindowRollingPolicy rollingPolicy = new FixedWindowRollingPolicy();
+        rollingPolicy.setActiveFileName(logFile.getPath());
+        rollingPolicy.setFileNamePattern(logFile.getPath() + ".%i.gz");
+        final SizeBasedTriggeringPolicy triggeringPolicy = new SizeBasedTriggeringPolicy();
+        triggeringPolicy.setMaxFileSize(104857600);
+        final AsyncRollingFileAppender appender = new AsyncRollingFileAppender();
+        appender.setRollingPolicy(rollingPolicy);
+        appender.setTriggeringPolicy(triggeringPolicy);
+        appender.setLayout(new JsonLayout());
+        appender.setCoalesceWindow(coalesceWindow);
+        appender.activateOptions();
+        return appender;
+    }
+
+    private static Logger createLogger(String name, AsyncRollingFileAppender appender) {
+        final Logger logger = Logger.getLogger(AsyncRollingFileAppenderTest.class.getName() + "." + name);
+        logger.setAdditivity(false);
+        logger.addAppender(appender);
+        return logger;
+    }
+
+    private static List<JsonObject> readLines(File logFile) throws IOException {
+        final List<JsonObject> lines = new ArrayList<>();
+        try (FileInputStream fs = new FileInputStream(logFile)) {
+            for (String line : IOUtils.readLines(fs)) {
+                lines.add(new JsonParser().parse(line).getAsJsonObject());
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,167 @@
+package com.kloudtek.log4j;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class CoalescerTest {
+    private static final long WINDOW = 1000L;
+    // standalone logger, so that building events doesn't trigger log4j configuration
+    private static final Logger LOGGER = new Logger(CoalescerTest.class.getName()) {
+    };
+
+    @Test
+    public void testDisabledPassesThrough() {
+        AsyncRollingFileAppender.Coalescer coalescer = new AsyncRollingFileAppender.Coalescer();
+        LoggingEvent[] events = {createEvent(1000L, "test", null), createEvent(1001L, "test", null)};
+        List<LoggingEvent> result = coalescer.process(events, 0L, 128, 1001L, false, false);
+        assertEquals(result.size(), 2);
+        assertSame(result.get(0), events[0]);
+        assertSame(result.get(1), events[1]);
+        assertEquals(coalescer.getPendingSize(), 0);
+    }
+
+    @Test
+    public void testRepeatsCoalesced() {
+        AsyncRollingFileAppender.Coalescer coalescer = new AsyncRollingFileAppender.Coalescer();
+        LoggingEvent[] events = new LoggingEvent[5];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = createEvent(1000L + i, "test", null);
+        }
+        List<LoggingEvent> result = coalescer.process(events, WINDOW, 128, 1004L, false, false);
+        assertEquals(result.size(), 1);
+        assertSame(result.get(0), events[0]);
+        assertEquals(coalescer.getFlushDelay(1004L, WINDOW), 996L);
+
+        result = coalescer.process(null, WINDOW, 128, 2000L, false, false);
+        assertEquals(result.size(), 1);
+        CoalescedLoggingEvent coalesced = (CoalescedLoggingEvent) result.get(0);
+        assertEquals(coalesced.getCount(), 5);
+        assertEquals(coalesced.getFirstTimestamp(), 1000L);
+        assertEquals(coalesced.getLastTimestamp(), 1004L);
+        assertEquals(coalesced.getLoggerName(), CoalescerTest.class.getName());
+        assertEquals(coalesced.getMessage(), "test");
+        assertEquals(coalescer.getPendingSize(), 0);
+    }
+
+    @Test
+    public void testRepeatAfterWindowStartsNewWindow() {
+        AsyncRollingFileAppender.Coalescer coalescer = new AsyncRollingFileAppender.Coalescer();
+        LoggingEvent[] events = {createEvent(1000L, "test", null), createEvent(1500L, "test", null), createEvent(2000L, "test", null)};
+        List<LoggingEvent> result = coalescer.process(events, WINDOW, 128, 2000L, false, false);
+        assertEquals(result.size(), 3);
+        assertSame(result.get(0), events[0]);
+        CoalescedLoggingEvent coalesced = (CoalescedLoggingEvent) result.get(1);
+        assertEquals(coalesced.getCount(), 2);
+        assertEquals(coalesced.getFirstTimestamp(), 1000L);
+        assertEquals(coalesced.getLastTimestamp(), 1500L);
+        assertSame(result.get(2), events[2]);
+        assertEquals(coalescer.getPendingSize(), 1);
+    }
+
+    @Test
+    public void testThrowableFingerprint() {
+        AsyncRollingFileAppender.Coalescer coalescer = new AsyncRollingFileAppender.Coalescer();
+        LoggingEvent[] events = new LoggingEvent[4];
+        for (int i = 0; i < 3; i++) {
+            // same call site with varying messages, the last one with a different cause
+            Throwable cause = i < 2 ? new IOException("cause " + i) : new IllegalStateException("cause " + i);
+            events[i] = createEvent(1000L + i, "test", createException("failure " + i, cause));
+        }
+        events[3] = createEvent(1003L, "test", new IllegalArgumentException("elsewhere"));
+        List<LoggingEvent> result = coalescer.process(events, WINDOW, 128, 1003L, false, false);
+        assertEquals(result.size(), 3);
+        assertSame(result.get(0), events[0]);
+        assertSame(result.get(1), events[2]);
+        assertSame(result.get(2), events[3]);
+
+        result = coalescer.process(null, WINDOW, 128, 2003L, false, false);
+        assertEquals(result.size(), 1);
+        CoalescedLoggingEvent coalesced = (CoalescedLoggingEvent) result.get(0);
+        assertEquals(coalesced.getCount(), 2);
+        assertEquals(coalesced.getThrowableInformation().getThrowable().getMessage(), "failure 1");
+    }
+
+    @Test
+    public void testFlushOnClose() {
+        AsyncRollingFileAppender.Coalescer coalescer = new AsyncRollingFileAppender.Coalescer();
+        LoggingEvent[] events = {createEvent(1000L, "test", null), createEvent(1001L, "test", null), createEvent(1002L, "test", null)};
+        coalescer.process(events, WINDOW, 128, 1002L, false, false);
+        List<LoggingEvent> result = coalescer.process(null, WINDOW, 128, 1002L, true, false);
+        assertEquals(result.size(), 1);
+        assertEquals(((CoalescedLoggingEvent) result.get(0)).getCount(), 3);
+        assertEquals(coalescer.getPendingSize(), 0);
+    }
+
+    @Test
+    public void testFlushWhenDisabled() {
+        AsyncRollingFileAppender.Coalescer coalescer = new AsyncRollingFileAppender.Coalescer();
+        LoggingEvent[] events = {createEvent(1000L, "test", null), createEvent(1001L, "test", null), createEvent(1002L, "test", null)};
+        coalescer.process(events, WINDOW, 128, 1002L, false, false);
+        LoggingEvent other = createEvent(1003L, "other", null);
+        List<LoggingEvent> result = coalescer.process(new LoggingEvent[]{other}, 0L, 128, 1003L, false, false);
+        assertEquals(result.size(), 2);
+        assertEquals(((CoalescedLoggingEvent) result.get(0)).getCount(), 3);
+        assertSame(result.get(1), other);
+        assertEquals(coalescer.getPendingSize(), 0);
+    }
+
+    @Test
+    public void testBurstOfDistinctMessages() {
+        AsyncRollingFileAppender.Coalescer coalescer = new AsyncRollingFileAppender.Coalescer();
+        LoggingEvent[] events = new LoggingEvent[10000];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = createEvent(1000L, "test " + i, null);
+        }
+        List<LoggingEvent> result = coalescer.process(events, WINDOW, 128, 1000L, false, false);
+        assertEquals(result.size(), events.length);
+        assertEquals(coalescer.getPendingSize(), 128);
+        // first message has been evicted, so a repeat is written immediately
+        LoggingEvent repeat = createEvent(1001L, "test 0", null);
+        result = coalescer.process(new LoggingEvent[]{repeat}, WINDOW, 128, 1001L, false, false);
+        assertEquals(result.size(), 1);
+        assertSame(result.get(0), repeat);
+        assertEquals(coalescer.getPendingSize(), 128);
+    }
+
+    @Test
+    public void testDeserializedEventKeepsLoggerName() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(buf)) {
+            os.writeObject(createEvent(1000L, "test", null));
+        }
+        LoggingEvent event;
+        try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+            event = (LoggingEvent) is.readObject();
+        }
+        assertNull(event.getLogger());
+        CoalescedLoggingEvent coalesced = new CoalescedLoggingEvent(event, null, 2, 1000L, 1001L);
+        assertEquals(coalesced.getLoggerName(), CoalescerTest.class.getName());
+        assertEquals(coalesced.getLogger().getName(), CoalescerTest.class.getName());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeWindowRejected() {
+        new AsyncRollingFileAppender().setCoalesceWindow(-1L);
+    }
+
+    static LoggingEvent createEvent(long timestamp, String message, Throwable throwable) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), LOGGER, timestamp, Level.ERROR, message, throwable);
+        event.getThrowableStrRep();
+        return event;
+    }
+
+    private static RuntimeException createException(String message, Throwable cause) {
+        return new RuntimeException(message, cause);
+    }
+}
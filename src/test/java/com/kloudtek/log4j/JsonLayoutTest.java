@@ -0,0 +1,32 @@
+package com.kloudtek.log4j;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.log4j.spi.LoggingEvent;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class JsonLayoutTest {
+    @Test
+    public void testPlainEvent() {
+        JsonObject json = format(CoalescerTest.createEvent(1000L, "test", null));
+        assertFalse(json.has("count"));
+        assertFalse(json.has("firstTimestamp"));
+        assertFalse(json.has("lastTimestamp"));
+    }
+
+    @Test
+    public void testCoalescedEvent() {
+        LoggingEvent event = CoalescerTest.createEvent(1445000000000L, "test", null);
+        JsonObject json = format(new CoalescedLoggingEvent(event, null, 3, 1445000000000L, 1445000002000L));
+        assertEquals(json.get("count").getAsInt(), 3);
+        assertEquals(json.get("firstTimestamp").getAsString(), "2015-10-16T12:53:20Z");
+        assertEquals(json.get("lastTimestamp").getAsString(), "2015-10-16T12:53:22Z");
+        assertEquals(json.get("message").getAsString(), "test");
+    }
+
+    private static JsonObject format(LoggingEvent event) {
+        return new JsonParser().parse(new JsonLayout().format(event)).getAsJsonObject();
+    }
+}